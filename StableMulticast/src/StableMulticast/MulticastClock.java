@@ -54,6 +54,21 @@ public class MulticastClock implements Serializable {
         }
     }
 
+    // Element-wise max, so a late (retransmitted) message never moves a row backwards.
+    public synchronized void mergeVector(int processId, int[] newVector) {
+        if (processId >= 0 && processId < numberOfProcesses && newVector != null) {
+            for (int j = 0; j < Math.min(numberOfProcesses, newVector.length); j++) {
+                mc[processId][j] = Math.max(mc[processId][j], newVector[j]);
+            }
+        }
+    }
+
+    public synchronized void setValue(int processId, int vectorIndex, int value) {
+        if (processId >= 0 && processId < numberOfProcesses && vectorIndex >= 0 && vectorIndex < numberOfProcesses) {
+            mc[processId][vectorIndex] = value;
+        }
+    }
+
     public synchronized int getValue(int processId, int vectorIndex) {
         if (processId >= 0 && processId < numberOfProcesses && vectorIndex >= 0 && vectorIndex < numberOfProcesses) {
             return mc[processId][vectorIndex];
@@ -0,0 +1,43 @@
+package StableMulticast;
+
+import java.io.Serializable;
+
+public class NackMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private int requesterId; // Process that detected the gap
+    private int senderId; // Process that must retransmit
+    private int[] missingSeqs; // Values of senderVC[sender] that were never received
+
+    public NackMessage(int requesterId, int senderId, int[] missingSeqs) {
+        this.requesterId = requesterId;
+        this.senderId = senderId;
+        this.missingSeqs = missingSeqs;
+    }
+
+    public int getRequesterId() {
+        return requesterId;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public int[] getMissingSeqs() {
+        return missingSeqs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("NACK from P").append(requesterId).append(" to P").append(senderId).append(" missing: [");
+        if (missingSeqs != null) {
+            for (int i = 0; i < missingSeqs.length; i++) {
+                sb.append(missingSeqs[i]);
+                if (i < missingSeqs.length - 1) {
+                    sb.append(", ");
+                }
+            }
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
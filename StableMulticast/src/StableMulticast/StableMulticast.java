@@ -13,6 +13,15 @@ public class StableMulticast {
     private static final int DISCOVERY_INTERVAL_MS = 2000; // Discover members every 2 seconds
     // private static final int DISPLAY_INTERVAL_MS = 2000; // Display state every 2 seconds - REMOVIDO!
 
+    // Loss recovery (NACK) settings
+    private static final int NACK_CHECK_INTERVAL_MS = 500; // How often receivers look for gaps
+    private static final int NACK_GRACE_MS = 1500; // A gap must outlive the artificial send delay before it is NACKed
+    private static final int NACK_RETRY_INTERVAL_MS = 2000; // Minimum time between NACKs for the same gap
+    private static final int MAX_NACK_ATTEMPTS = 5; // After this, the receiver gives up on a gap
+    private static final int MAX_NACK_BATCH = 32; // Max sequence numbers carried by a single NACK
+    private static final int RETRANSMIT_MIN_INTERVAL_MS = 1000; // Per requester/message rate limit on the sender
+    private static final int MAX_RETRANSMISSIONS = 5; // Per requester/message retry bound on the sender
+
     private int myId; // Unique ID for this instance (assigned based on discovery order)
     private String myIp;
     private Integer myPort;
@@ -20,7 +29,13 @@ public class StableMulticast {
 
     private volatile MulticastClock mc; // The vector of vector clocks
     private volatile List<StableMulticastMessage> messageBuffer; // Buffer for received messages
+    private final Map<Integer, StableMulticastMessage> retainedMessages; // My own not-yet-stable messages, by sequence number
+    private final Map<InetSocketAddress, Map<Integer, RetryState>> retransmissions; // Sender side retry bookkeeping
+    private final Map<Integer, Integer> deliveredUpTo; // Per sender: highest sequence number received without gaps
+    private final Map<Integer, Set<Integer>> deliveredAhead; // Per sender: sequence numbers received past a gap
+    private final Map<Integer, Map<Integer, RetryState>> missingSeqs; // Per sender: gaps being NACKed
     private final List<InetSocketAddress> groupMembers; // IP and port of other StableMulticast instances
+    private List<InetSocketAddress> idAssignment; // Sorted members the current IDs were assigned from (index = ID)
 
     private DatagramSocket unicastSocket;
     private MulticastSocket multicastSocket;
@@ -41,6 +56,11 @@ public class StableMulticast {
         this.myId = -1; // Will be assigned dynamically
 
         this.messageBuffer = new ArrayList<>();
+        this.retainedMessages = new TreeMap<>();
+        this.retransmissions = new HashMap<>();
+        this.deliveredUpTo = new HashMap<>();
+        this.deliveredAhead = new HashMap<>();
+        this.missingSeqs = new HashMap<>();
         this.groupMembers = Collections.synchronizedList(new ArrayList<>()); // Thread-safe list
 
         this.unicastSocket = new DatagramSocket(myPort, InetAddress.getByName(myIp));
@@ -52,7 +72,7 @@ public class StableMulticast {
         this.multicastSocket.setTimeToLive(1); // Limit multicast to local subnet
 
         this.threadPool = Executors.newCachedThreadPool();
-        this.scheduledThreadPool = Executors.newScheduledThreadPool(2);
+        this.scheduledThreadPool = Executors.newScheduledThreadPool(3);
 
         this.running = true;
         this.scanner = new Scanner(System.in);
@@ -61,6 +81,7 @@ public class StableMulticast {
         startMulticastDiscoveryReceiver();
         startUnicastReceiver();
         startStabilizationChecker();
+        startNackService();
         // startDisplayService(); // <--- REMOVIDO: Não mais exibição periódica automática
 
         // Nova chamada para exibir o estado inicial após a inicialização
@@ -87,33 +108,42 @@ public class StableMulticast {
                     if (!groupMembers.contains(new InetSocketAddress(myIp, myPort))) {
                         groupMembers.add(new InetSocketAddress(myIp, myPort));
                     }
-                    sortedMembers = groupMembers.stream()
-                            .sorted(Comparator
-                                    .comparing((InetSocketAddress addr) -> addr.getAddress().getHostAddress())
-                                    .thenComparing(InetSocketAddress::getPort))
-                            .collect(Collectors.toList());
+                    sortedMembers = getSortedMembers();
                 }
 
                 int newId = sortedMembers.indexOf(new InetSocketAddress(myIp, myPort));
 
-                synchronized (clockLock) {
-                    if (mc == null || newId != myId || sortedMembers.size() != mc.getNumberOfProcesses()) {
-                        System.out.println("\n[P" + myId + "] Group membership potentially changed. Re-assigning IDs. My old ID: P" + myId + " -> New ID: P" + newId + ".");
-                        MulticastClock newMc = new MulticastClock(sortedMembers.size());
-                        if (mc != null) {
-                            int oldSize = mc.getNumberOfProcesses();
-                            for (int i = 0; i < Math.min(oldSize, newMc.getNumberOfProcesses()); i++) {
-                                for (int j = 0; j < Math.min(oldSize, newMc.getNumberOfProcesses()); j++) {
-                                    if (i < newMc.getNumberOfProcesses() && j < newMc.getNumberOfProcesses()) {
-                                        newMc.getMc()[i][j] = mc.getMc()[i][j];
+                // bufferLock is taken first (same order as the stabilization checker) so that buffered and
+                // retained messages are renumbered in the same step as the clock.
+                synchronized (bufferLock) {
+                    synchronized (clockLock) {
+                        if (mc == null || newId != myId || sortedMembers.size() != mc.getNumberOfProcesses()) {
+                            System.out.println("\n[P" + myId + "] Group membership potentially changed. Re-assigning IDs. My old ID: P" + myId + " -> New ID: P" + newId + ".");
+                            MulticastClock newMc = new MulticastClock(sortedMembers.size());
+                            if (mc != null) {
+                                // IDs follow the sorted address order, so a new member can shift existing IDs.
+                                // Carry every per-process value over by address instead of by index.
+                                int[] oldToNew = buildRemap(idAssignment, sortedMembers, mc.getNumberOfProcesses());
+                                for (int i = 0; i < oldToNew.length; i++) {
+                                    for (int j = 0; j < oldToNew.length; j++) {
+                                        if (oldToNew[i] != -1 && oldToNew[j] != -1) {
+                                            newMc.getMc()[oldToNew[i]][oldToNew[j]] = mc.getMc()[i][j];
+                                        }
                                     }
                                 }
+                                remapKeys(deliveredUpTo, oldToNew);
+                                remapKeys(deliveredAhead, oldToNew);
+                                remapKeys(missingSeqs, oldToNew);
+                                int newSize = sortedMembers.size();
+                                messageBuffer.replaceAll(msg -> remapMessage(msg, oldToNew, newSize));
+                                retainedMessages.replaceAll((seq, msg) -> remapMessage(msg, oldToNew, newSize));
                             }
+                            mc = newMc;
+                            myId = newId;
+                            idAssignment = sortedMembers;
+                            // displayClockAndBuffer(); // Pode ser chamado aqui se quiser que a descoberta inicial force uma exibição.
+                                                     // Mas se for muito frequente, ainda pode ser disruptivo. Mantendo fora por enquanto.
                         }
-                        mc = newMc;
-                        myId = newId;
-                        // displayClockAndBuffer(); // Pode ser chamado aqui se quiser que a descoberta inicial force uma exibição.
-                                                 // Mas se for muito frequente, ainda pode ser disruptivo. Mantendo fora por enquanto.
                     }
                 }
             } catch (IOException e) {
@@ -167,7 +197,7 @@ public class StableMulticast {
                     unicastSocket.receive(packet);
                     ByteArrayInputStream bis = new ByteArrayInputStream(packet.getData(), packet.getOffset(), packet.getLength());
                     ObjectInputStream ois = new ObjectInputStream(bis);
-                    StableMulticastMessage receivedMsg = (StableMulticastMessage) ois.readObject();
+                    Object received = ois.readObject();
 
                     InetSocketAddress senderAddress = new InetSocketAddress(packet.getAddress(), packet.getPort());
                     if (!groupMembers.contains(senderAddress)) {
@@ -175,9 +205,14 @@ public class StableMulticast {
                             groupMembers.add(senderAddress);
                         }
                     }
-                    processReceivedMessage(receivedMsg);
-                    // CHAMA A EXIBIÇÃO APÓS RECEBER E PROCESSAR UMA MENSAGEM
-                    displayClockAndBuffer(); 
+                    if (received instanceof NackMessage) {
+                        handleNack((NackMessage) received, senderAddress);
+                        continue;
+                    }
+                    if (processReceivedMessage((StableMulticastMessage) received, senderAddress)) {
+                        // CHAMA A EXIBIÇÃO APÓS RECEBER E PROCESSAR UMA MENSAGEM
+                        displayClockAndBuffer();
+                    }
 
                 } catch (SocketException e) {
                     if (running) {
@@ -190,12 +225,17 @@ public class StableMulticast {
         });
     }
 
-    private void processReceivedMessage(StableMulticastMessage msg) {
-        synchronized (bufferLock) {
-            messageBuffer.add(msg);
-        }
+    // Returns false when the message is a duplicate (e.g. a retransmission that raced the original).
+    private boolean processReceivedMessage(StableMulticastMessage msg, InetSocketAddress senderAddress) {
+        int sender = msg.getSenderId();
+        int seq = msg.getSenderVC()[sender];
 
         synchronized (clockLock) {
+            if (!recordReceived(sender, seq)) {
+                System.out.println("[P" + myId + "] Ignoring duplicate: " + msg);
+                return false;
+            }
+
             int requiredSize = Math.max(myId, msg.getSenderId()) + 1;
             if (mc.getNumberOfProcesses() < requiredSize) {
                 MulticastClock tempMc = new MulticastClock(requiredSize);
@@ -204,14 +244,241 @@ public class StableMulticast {
                     System.arraycopy(mc.getMc()[i], 0, tempMc.getMc()[i], 0, oldSize);
                 }
                 mc = tempMc;
+
+                // The sender knows members we have not discovered yet. Record its address under the ID it
+                // used, so the next reassignment maps this ID's recovery state by address instead of dropping it.
+                List<InetSocketAddress> grown = new ArrayList<>(idAssignment != null ? idAssignment : Collections.emptyList());
+                while (grown.size() < requiredSize) {
+                    grown.add(null);
+                }
+                if (grown.get(sender) == null && !grown.contains(senderAddress)) {
+                    grown.set(sender, senderAddress);
+                }
+                idAssignment = grown;
             }
 
-            mc.updateVector(msg.getSenderId(), msg.getSenderVC());
-            mc.increment(myId, msg.getSenderId());
+            mc.mergeVector(sender, msg.getSenderVC());
+            // Only count what arrived without gaps, so a lost message keeps blocking stability until it is recovered.
+            mc.setValue(myId, sender, deliveredUpTo.get(sender));
+        }
+
+        synchronized (bufferLock) {
+            messageBuffer.add(msg);
         }
 
         clientCallback.deliver(msg.getContent());
         //System.out.println("entreguei a msg:" + msg.getContent());
+        return true;
+    }
+
+    // Must be called holding clockLock. Returns false if seq from sender was already received.
+    private boolean recordReceived(int sender, int seq) {
+        Integer upTo = deliveredUpTo.get(sender);
+        if (upTo == null) {
+            // First message from this sender: anything older was multicast before we were in the group.
+            // (The flip side is that losing a sender's very first message to us cannot be detected.)
+            upTo = seq - 1;
+            deliveredUpTo.put(sender, upTo);
+        }
+        Set<Integer> ahead = deliveredAhead.computeIfAbsent(sender, k -> new HashSet<>());
+        if (seq <= upTo || !ahead.add(seq)) {
+            return false;
+        }
+        advanceDeliveredUpTo(sender);
+
+        Map<Integer, RetryState> gaps = missingSeqs.get(sender);
+        if (gaps != null && gaps.remove(seq) != null) {
+            System.out.println("[P" + myId + "] Recovered message " + seq + " from P" + sender + ".");
+        }
+        return true;
+    }
+
+    // Must be called holding clockLock. A gap the sender never filled is counted as if it had
+    // arrived, so the gap-free count (and with it stability) can move past it.
+    private void markLost(int sender, int seq) {
+        Map<Integer, RetryState> gaps = missingSeqs.get(sender);
+        if (gaps != null) {
+            gaps.remove(seq);
+        }
+        if (seq <= deliveredUpTo.getOrDefault(sender, 0)) {
+            return;
+        }
+        deliveredAhead.computeIfAbsent(sender, k -> new HashSet<>()).add(seq);
+        advanceDeliveredUpTo(sender);
+        mc.setValue(myId, sender, deliveredUpTo.get(sender));
+        // Only logged: redrawing from this background thread would clear the screen in the middle of msend's prompts.
+        // The new state shows up on the next receive or discard.
+        System.err.println("[P" + myId + "] Giving up on message " + seq + " from P" + sender + "; marked as lost.");
+    }
+
+    // Must be called holding clockLock.
+    private void advanceDeliveredUpTo(int sender) {
+        int upTo = deliveredUpTo.getOrDefault(sender, 0);
+        Set<Integer> ahead = deliveredAhead.computeIfAbsent(sender, k -> new HashSet<>());
+        while (ahead.remove(upTo + 1)) {
+            upTo++;
+        }
+        deliveredUpTo.put(sender, upTo);
+    }
+
+    private void startNackService() {
+        scheduledThreadPool.scheduleAtFixedRate(() -> {
+            if (!running) return;
+            try {
+                sendPendingNacks();
+            } catch (Exception e) {
+                System.err.println("Error in NACK service: " + e.getMessage());
+            }
+        }, NACK_CHECK_INTERVAL_MS, NACK_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendPendingNacks() {
+        List<NackMessage> nacks = new ArrayList<>();
+        List<InetSocketAddress> ids; // Assignment the sender IDs in nacks refer to
+        long now = System.currentTimeMillis();
+        synchronized (clockLock) {
+            if (mc == null || myId == -1) return;
+            ids = idAssignment;
+            for (int sender = 0; sender < mc.getNumberOfProcesses(); sender++) {
+                if (sender == myId) continue;
+
+                // Gaps show up either as sequence numbers received past a hole, or as another
+                // process (including the sender itself) having seen more of the sender than we have.
+                Integer upTo = deliveredUpTo.get(sender);
+                if (upTo == null) continue; // Never heard from this sender, so there is no baseline to find gaps against
+                Set<Integer> ahead = deliveredAhead.getOrDefault(sender, Collections.emptySet());
+                int highestKnown = upTo;
+                for (int seq : ahead) {
+                    highestKnown = Math.max(highestKnown, seq);
+                }
+                for (int i = 0; i < mc.getNumberOfProcesses(); i++) {
+                    highestKnown = Math.max(highestKnown, mc.getValue(i, sender));
+                }
+
+                Map<Integer, RetryState> gaps = missingSeqs.computeIfAbsent(sender, k -> new TreeMap<>());
+                for (int seq = upTo + 1; seq <= highestKnown; seq++) {
+                    if (!ahead.contains(seq)) {
+                        gaps.putIfAbsent(seq, new RetryState(now));
+                    }
+                }
+
+                List<Integer> batch = new ArrayList<>();
+                List<Integer> abandoned = new ArrayList<>();
+                for (Map.Entry<Integer, RetryState> entry : gaps.entrySet()) {
+                    RetryState state = entry.getValue();
+                    if (state.attempts >= MAX_NACK_ATTEMPTS) {
+                        // The last NACK also gets a full retry interval to be answered.
+                        if (now - state.lastAttempt >= NACK_RETRY_INTERVAL_MS) {
+                            abandoned.add(entry.getKey());
+                        }
+                        continue;
+                    }
+                    if (batch.size() >= MAX_NACK_BATCH) continue;
+                    if (now - state.firstDetected < NACK_GRACE_MS) continue;
+                    if (state.attempts > 0 && now - state.lastAttempt < NACK_RETRY_INTERVAL_MS) continue;
+                    state.attempts++;
+                    state.lastAttempt = now;
+                    batch.add(entry.getKey());
+                }
+                for (int seq : abandoned) {
+                    markLost(sender, seq);
+                }
+                if (!batch.isEmpty()) {
+                    nacks.add(new NackMessage(myId, sender, batch.stream().mapToInt(Integer::intValue).toArray()));
+                }
+            }
+        }
+
+        if (nacks.isEmpty()) return;
+        for (NackMessage nack : nacks) {
+            if (ids == null || nack.getSenderId() >= ids.size()) continue;
+            InetSocketAddress destination = ids.get(nack.getSenderId());
+            if (destination == null) continue; // ID only known from the clock, no address for it yet
+            try {
+                sendObject(nack, destination);
+                System.out.println("[P" + myId + "] Sent " + nack);
+            } catch (IOException e) {
+                System.err.println("Error sending NACK: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handleNack(NackMessage nack, InetSocketAddress requester) {
+        if (nack.getSenderId() != myId) {
+            return; // Sent before an ID reassignment; the requester will retry against the right process
+        }
+        List<StableMulticastMessage> toResend = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (bufferLock) {
+            Map<Integer, RetryState> perSeq = retransmissions.computeIfAbsent(requester, k -> new HashMap<>());
+            for (int seq : nack.getMissingSeqs()) {
+                StableMulticastMessage msg = retainedMessages.get(seq);
+                if (msg == null) continue; // Already stable (or never existed), nothing to resend
+                RetryState state = perSeq.computeIfAbsent(seq, k -> new RetryState(now));
+                if (state.attempts >= MAX_RETRANSMISSIONS) continue;
+                if (state.attempts > 0 && now - state.lastAttempt < RETRANSMIT_MIN_INTERVAL_MS) continue;
+                state.attempts++;
+                state.lastAttempt = now;
+                toResend.add(msg);
+            }
+        }
+
+        for (StableMulticastMessage msg : toResend) {
+            threadPool.submit(() -> {
+                try {
+                    System.out.println("[P" + myId + "] Retransmitting '" + msg.getContent() + "' to " + requester.getHostString() + ":" + requester.getPort() + " (NACK from P" + nack.getRequesterId() + ")");
+                    sendObject(msg, requester);
+                } catch (IOException e) {
+                    System.err.println("Error retransmitting: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    // Maps each old ID to its new ID by address (-1 if the old ID has no known address; from may contain nulls).
+    private static int[] buildRemap(List<InetSocketAddress> from, List<InetSocketAddress> to, int oldSize) {
+        int[] oldToNew = new int[oldSize];
+        for (int i = 0; i < oldSize; i++) {
+            oldToNew[i] = from != null && i < from.size() && from.get(i) != null ? to.indexOf(from.get(i)) : -1;
+        }
+        return oldToNew;
+    }
+
+    private static <V> void remapKeys(Map<Integer, V> byProcessId, int[] oldToNew) {
+        Map<Integer, V> remapped = new HashMap<>();
+        for (Map.Entry<Integer, V> entry : byProcessId.entrySet()) {
+            int oldId = entry.getKey();
+            if (oldId >= 0 && oldId < oldToNew.length && oldToNew[oldId] != -1) {
+                remapped.put(oldToNew[oldId], entry.getValue());
+            }
+        }
+        byProcessId.clear();
+        byProcessId.putAll(remapped);
+    }
+
+    private static StableMulticastMessage remapMessage(StableMulticastMessage msg, int[] oldToNew, int newSize) {
+        int sender = msg.getSenderId();
+        int[] oldVC = msg.getSenderVC();
+        if (sender < 0 || sender >= oldToNew.length || oldToNew[sender] == -1 || oldVC.length != oldToNew.length) {
+            return msg; // Not in the old assignment; leave it as it was
+        }
+        int[] newVC = new int[newSize];
+        for (int j = 0; j < oldVC.length; j++) {
+            if (oldToNew[j] != -1) {
+                newVC[oldToNew[j]] = oldVC[j];
+            }
+        }
+        return new StableMulticastMessage(msg.getContent(), newVC, oldToNew[sender]);
+    }
+
+    private List<InetSocketAddress> getSortedMembers() {
+        synchronized (groupMembers) {
+            return groupMembers.stream()
+                    .sorted(Comparator
+                            .comparing((InetSocketAddress addr) -> addr.getAddress().getHostAddress())
+                            .thenComparing(InetSocketAddress::getPort))
+                    .collect(Collectors.toList());
+        }
     }
 
     private void startStabilizationChecker() {
@@ -249,20 +516,9 @@ public class StableMulticast {
                     continue;
                 }
 
-                boolean isStable = true;
+                boolean isStable;
                 synchronized (clockLock) {
-                    int senderVC_for_sender = msg.getSenderVC()[sender];
-                    int minClockValueForSender = Integer.MAX_VALUE;
-
-                    for (int i = 0; i < mc.getNumberOfProcesses(); i++) {
-                        if (mc.getValue(i, sender) < minClockValueForSender) {
-                            minClockValueForSender = mc.getValue(i, sender);
-                        }
-                    }
-
-                    if (senderVC_for_sender > minClockValueForSender) {
-                        isStable = false;
-                    }
+                    isStable = isStable(sender, msg.getSenderVC()[sender]);
                 }
 
                 if (isStable) {
@@ -270,9 +526,37 @@ public class StableMulticast {
                 }
             }
             messageBuffer.removeAll(stableToDiscard);
+
+            // My own copies are only needed for retransmission until everyone has them.
+            Iterator<Map.Entry<Integer, StableMulticastMessage>> retainedIterator = retainedMessages.entrySet().iterator();
+            while (retainedIterator.hasNext()) {
+                Map.Entry<Integer, StableMulticastMessage> entry = retainedIterator.next();
+                int sender = entry.getValue().getSenderId();
+                boolean isStable;
+                synchronized (clockLock) {
+                    isStable = mc.getNumberOfProcesses() > sender && isStable(sender, entry.getKey());
+                }
+                if (isStable) {
+                    retainedIterator.remove();
+                    for (Map<Integer, RetryState> perSeq : retransmissions.values()) {
+                        perSeq.remove(entry.getKey());
+                    }
+                }
+            }
         }
     }
 
+    // Must be called holding clockLock.
+    private boolean isStable(int sender, int seq) {
+        int minClockValueForSender = Integer.MAX_VALUE;
+        for (int i = 0; i < mc.getNumberOfProcesses(); i++) {
+            if (mc.getValue(i, sender) < minClockValueForSender) {
+                minClockValueForSender = mc.getValue(i, sender);
+            }
+        }
+        return seq <= minClockValueForSender;
+    }
+
     private void sendUnicast(StableMulticastMessage msg, InetSocketAddress destination) {
         threadPool.submit(() -> {
             try {
@@ -281,14 +565,7 @@ public class StableMulticast {
                 System.out.println("[P" + myId + "] Sending unicast: '" + msg.getContent() + "' to " + destination.getHostString() + ":" + destination.getPort() + " (delay: " + delayMillis + "ms)");
                 Thread.sleep(delayMillis);
 
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                oos.writeObject(msg);
-                oos.flush();
-                byte[] data = bos.toByteArray();
-
-                DatagramPacket packet = new DatagramPacket(data, data.length, destination.getAddress(), destination.getPort());
-                unicastSocket.send(packet);
+                sendObject(msg, destination);
                 // O display será chamado após o msend para mostrar o estado atualizado.
             } catch (IOException e) {
                 System.err.println("Error sending unicast: " + e.getMessage());
@@ -299,6 +576,17 @@ public class StableMulticast {
         });
     }
 
+    private void sendObject(Serializable payload, InetSocketAddress destination) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(payload);
+        oos.flush();
+        byte[] data = bos.toByteArray();
+
+        DatagramPacket packet = new DatagramPacket(data, data.length, destination.getAddress(), destination.getPort());
+        unicastSocket.send(packet);
+    }
+
     // private void startDisplayService() { // <--- REMOVIDO
     //     scheduledThreadPool.scheduleAtFixedRate(this::displayClockAndBuffer, 0, DISPLAY_INTERVAL_MS, TimeUnit.MILLISECONDS);
     // }
@@ -325,6 +613,7 @@ public class StableMulticast {
                     System.out.println("  - " + m);
                 }
             }
+            System.out.println("Retained for retransmission (" + retainedMessages.size() + " messages)");
         }
         System.out.println("-----------------------------------------");
     }
@@ -344,12 +633,10 @@ public class StableMulticast {
             return;
         }
 
-        StableMulticastMessage msg;
-        synchronized (clockLock) {
-            mc.increment(myId, myId);
-            int[] senderVC = mc.getVector(myId);
-            msg = new StableMulticastMessage(msgContent, senderVC, myId);
-        }
+        // The clock is only incremented once the message is really going out, so an aborted send
+        // does not spend a sequence number (which receivers would see as a gap and NACK).
+        StableMulticastMessage msg = null;
+        List<InetSocketAddress> msgAssignment = null; // ID assignment msg was numbered under
 
         System.out.println("\n--- Sending Message: '" + msgContent + "' ---");
         System.out.println("  1. Send to All available members (no further prompts)");
@@ -361,9 +648,14 @@ public class StableMulticast {
         if ("1".equals(initialChoice)) {
             selectedRecipients.addAll(availableOtherMembers);
             System.out.println("\nSending message '" + msgContent + "' to all available members without further prompts.");
+            synchronized (clockLock) {
+                msg = createMessage(msgContent);
+                msgAssignment = idAssignment;
+            }
             for (InetSocketAddress member : selectedRecipients) { // Iterar sobre os membros selecionados
                 sendUnicast(msg, member);
             }
+            retainForRetransmission(msg, msgAssignment);
             // Chama a exibição do estado atualizado após todos os envios no modo "Send to All"
             displayClockAndBuffer(); 
 
@@ -406,10 +698,16 @@ public class StableMulticast {
                 String controlChoice = scanner.nextLine().trim().toLowerCase();
 
                 if ("y".equals(controlChoice)) {
+                    if (msg == null) {
+                        synchronized (clockLock) {
+                            msg = createMessage(msgContent);
+                            msgAssignment = idAssignment;
+                        }
+                    }
                     sendUnicast(msg, member);
                     System.out.println("  -> Sent to " + member.getHostString() + ":" + member.getPort());
                 } else if ("n".equals(controlChoice)) {
-                    System.out.println("  -> Skipped sending to " + member.getHostString() + ":" + member.getPort());
+                    System.out.println("  -> Skipped sending to " + member.getHostString() + ":" + member.getPort() + " (it may still recover it via NACK once a later message reveals the gap)");
                 } else if ("s".equals(controlChoice)) {
                     System.out.println("  -> Skipping remaining recipients.");
                     break;
@@ -418,6 +716,12 @@ public class StableMulticast {
                 }
             }
             System.out.println("Controlled unicast sends complete for this message.\n");
+            // Retained only after the prompts, so a NACK cannot reach a member before its y/n was answered.
+            // Once retained, a member answered 'n' is treated like one that lost the message: it sees the
+            // gap on our next message and recovers this one through a NACK. So 'n' delays rather than withholds.
+            if (msg != null) {
+                retainForRetransmission(msg, msgAssignment);
+            }
             // Chama a exibição do estado atualizado após todos os envios no modo "Controlado"
             displayClockAndBuffer();
 
@@ -427,6 +731,40 @@ public class StableMulticast {
         }
     }
 
+    private StableMulticastMessage createMessage(String msgContent) {
+        synchronized (clockLock) {
+            mc.increment(myId, myId);
+            int[] senderVC = mc.getVector(myId);
+            return new StableMulticastMessage(msgContent, senderVC, myId);
+        }
+    }
+
+    // Keep a copy until it is stable so receivers that lose it can NACK it.
+    // If discovery reassigned IDs after msg was created (e.g. during the mode 2 prompts), the
+    // retained copies were already renumbered without it, so renumber it here the same way.
+    private void retainForRetransmission(StableMulticastMessage msg, List<InetSocketAddress> numberedUnder) {
+        synchronized (bufferLock) {
+            StableMulticastMessage copy = msg;
+            synchronized (clockLock) {
+                if (numberedUnder != idAssignment) {
+                    int[] oldToNew = buildRemap(numberedUnder, idAssignment, msg.getSenderVC().length);
+                    copy = remapMessage(msg, oldToNew, idAssignment.size());
+                }
+            }
+            retainedMessages.put(copy.getSenderVC()[copy.getSenderId()], copy);
+        }
+    }
+
+    private static class RetryState {
+        final long firstDetected;
+        long lastAttempt;
+        int attempts;
+
+        RetryState(long firstDetected) {
+            this.firstDetected = firstDetected;
+        }
+    }
+
     public void shutdown() {
         running = false;
         if (scanner != null) {